@@ -1,9 +1,41 @@
 package com.nsptools;
 
+import java.io.IOException;
 import com.nsptools.View.RunGUI;
+import com.nsptools.Model.NSPServer;
+import com.nsptools.Model.NSPCombiner;
 
 public class Main {
     public static void main(String args[]) {
+        // "--serve <directory> [port]" serves the parts in a directory as one file instead of opening the GUI
+        if (args.length > 0 && args[0].equals("--serve")) {
+            serve(args);
+            return;
+        }
+
         RunGUI.runGUI(args);
     }
+
+    private static void serve(String args[]) {
+        try {
+            if (args.length < 2 || args.length > 3) {
+                throw new IllegalArgumentException("Expected a directory and an optional port");
+            }
+            int port = args.length == 3 ? Integer.parseInt(args[2]) : NSPServer.DEFAULT_PORT;
+            NSPServer server = new NSPServer(new NSPCombiner(args[1], null), port);
+            server.start();
+            System.out.println("Serving " + server.getTotalSize() + " bytes at http://localhost:" + server.getPort()
+                    + server.getResourcePath());
+        } catch (NumberFormatException e) {
+            exitWithUsage("Invalid port: " + args[2]);
+        } catch (IOException | IllegalArgumentException e) {
+            exitWithUsage(e.getMessage());
+        }
+    }
+
+    private static void exitWithUsage(String message) {
+        System.err.println("Error: " + message);
+        System.err.println("Usage: --serve <directory> [port]");
+        System.exit(1);
+    }
 }
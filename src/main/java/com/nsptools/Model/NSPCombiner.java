@@ -3,8 +3,7 @@ package com.nsptools.Model;
 import java.io.File;
 import java.util.List;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.stream.Collectors;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.BufferedInputStream;
@@ -24,65 +23,85 @@ public class NSPCombiner {
 
     /**
      * Constructs an NSPCombiner object with the specified input directory and progress listener.
+     * The directory must contain exactly one valid part set.
      * 
      * @param directoryPath    the path to the directory containing the NSP file parts
      * @param progressListener a listener for progress updates
-     * @throws IllegalArgumentException if the directory is invalid or contains no part files
+     * @throws IllegalArgumentException if the directory is invalid, contains no part files,
+     *                                  contains more than one part set, or the part set is incomplete
      */
     public NSPCombiner(String directoryPath, ProgressListener progressListener) throws IllegalArgumentException {
-        this.inputDir = new File(directoryPath);
-        this.progressListener = progressListener;
+        this(findPartSet(directoryPath), progressListener);
+    }
 
-        if (!inputDir.isDirectory()) {
-            throw new IllegalArgumentException("The provided path is not a valid directory: " + directoryPath);
+    /**
+     * Constructs an NSPCombiner object for a part set found by a PartSetIndex.
+     * The part files are checked on disk again, since the index may not have caught up with recent changes.
+     * 
+     * @param partSet          the part set to combine
+     * @param progressListener a listener for progress updates
+     * @throws IllegalArgumentException if the part set is incomplete or inconsistent
+     */
+    public NSPCombiner(PartSetIndex.PartSet partSet, ProgressListener progressListener) throws IllegalArgumentException {
+        try {
+            partSet = partSet.reload();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read the parts of '" + partSet.getName() + "': "
+                    + e.getMessage(), e);
         }
 
-        this.partFiles = findPartFiles();
-
-        if (partFiles.isEmpty()) {
-            throw new IllegalArgumentException("No valid part files found in the directory: " + directoryPath);
+        if (!partSet.isValid()) {
+            throw new IllegalArgumentException("Part set '" + partSet.getName() + "' cannot be combined: "
+                    + String.join("; ", partSet.getProblems()));
         }
 
-        this.outputFileName = determineOutputFileName();
+        this.partFiles = partSet.getParts();
+        this.inputDir = partFiles.get(0).getParentFile();
+        this.progressListener = progressListener;
+        this.outputFileName = new File(inputDir, "output." + partSet.getExtension()).getPath();
     }
 
-    private List<File> findPartFiles() {
-        File[] files = inputDir.listFiles();
-        List<File> validFiles = new ArrayList<>();
-
-        if (files != null) {
-            for (File file : files) {
-                String fileName = file.getName().toLowerCase();
-                if (fileName.matches(".*_part_\\d+\\.(nsp|xci)") || fileName.matches("\\d{2}")) {
-                    validFiles.add(file);
-                }
-            }
+    private static PartSetIndex.PartSet findPartSet(String directoryPath) {
+        File inputDir = new File(directoryPath);
 
-            validFiles.sort(Comparator.comparing(this::extractPartNumber));
+        if (!inputDir.isDirectory()) {
+            throw new IllegalArgumentException("The provided path is not a valid directory: " + directoryPath);
         }
 
-        return validFiles;
-    }
+        List<PartSetIndex.PartSet> partSets;
+        try {
+            partSets = PartSetIndex.forDirectory(inputDir).getPartSets();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read the directory: " + directoryPath, e);
+        }
 
-    private int extractPartNumber(File file) {
-        String fileName = file.getName().toLowerCase();
-        String partNumberStr;
-
-        // Match patterns like "filename_part_x.nsp" or just "00"
-        if (fileName.matches(".*_part_\\d+\\.(nsp|xci)")) {
-            partNumberStr = fileName.replaceAll(".*_part_(\\d+)\\.(nsp|xci)", "$1");
-        } else if (fileName.matches("\\d{2}")) {
-            partNumberStr = fileName;
-        } else {
-            throw new IllegalArgumentException("Unexpected file name format: " + fileName);
+        if (partSets.isEmpty()) {
+            throw new IllegalArgumentException("No valid part files found in the directory: " + directoryPath);
+        }
+        if (partSets.size() > 1) {
+            throw new IllegalArgumentException("More than one part set found in the directory: " + directoryPath
+                    + " (" + partSets.stream().map(PartSetIndex.PartSet::getName).collect(Collectors.joining(", ")) + ")");
         }
 
-        return Integer.parseInt(partNumberStr);
+        return partSets.get(0);
     }
 
-    private String determineOutputFileName() {
-        String extension = partFiles.get(0).getName().endsWith(".xci") ? "xci" : "nsp";
-        return new File(inputDir, "output." + extension).getPath();
+    /**
+     * Returns the part files in the order they are combined.
+     * 
+     * @return an unmodifiable list of the part files
+     */
+    public List<File> getPartFiles() {
+        return partFiles;
+    }
+
+    /**
+     * Returns the path of the file the parts are combined into.
+     * 
+     * @return the output file path
+     */
+    public String getOutputFileName() {
+        return outputFileName;
     }
 
     /**
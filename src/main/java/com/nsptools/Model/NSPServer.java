@@ -0,0 +1,467 @@
+package com.nsptools.Model;
+
+import java.io.File;
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.io.BufferedInputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Serves the parts found by an NSPCombiner over HTTP as one combined file, without writing it to disk.
+ * Single byte ranges are supported, and file data is sent with FileChannel.transferTo
+ * so it goes straight from the part files to the socket.
+ * Up to 64 clients are served at once, and connections that stop sending requests
+ * or stop reading responses for 30 seconds are closed.
+ *
+ * @author V-Karch
+ */
+public class NSPServer implements Closeable {
+    public static final int DEFAULT_PORT = 8465;
+
+    // Each request must arrive within this long, including the wait for it on a kept-alive connection
+    private static final int IDLE_TIMEOUT_MILLIS = 30 * 1000;
+    private static final int MAX_HEADER_LINE = 8 * 1024;
+    private static final int MAX_HEADER_COUNT = 64;
+    // Each connection holds a worker thread, so connections beyond this are turned away with a 503
+    private static final int MAX_CONNECTIONS = 64;
+    // Responses are sent in chunks this size so a stalled client is noticed between them
+    private static final long TRANSFER_CHUNK = 256 * 1024;
+
+    private final FileChannel[] partChannels;
+    private final long[] partOffsets; // partOffsets[i] is where part i starts, the last entry is the total size
+    private final String resourcePath;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final Thread acceptThread;
+    private final Semaphore connections = new Semaphore(MAX_CONNECTIONS);
+    private final ConcurrentHashMap<SocketChannel, Long> writeProgress = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService stallSweeper;
+
+    /**
+     * Constructs an NSPServer for the parts of the given combiner, bound to the given port on all interfaces.
+     * The part files are opened once here and shared by every request.
+     *
+     * @param combiner the combiner whose part files are served
+     * @param port     the port to listen on, or 0 for any free port
+     * @throws IOException if a part file cannot be opened or the port cannot be bound
+     */
+    public NSPServer(NSPCombiner combiner, int port) throws IOException {
+        this(combiner, new InetSocketAddress(port));
+    }
+
+    /**
+     * Constructs an NSPServer for the parts of the given combiner, bound to the given address.
+     *
+     * @param combiner the combiner whose part files are served
+     * @param address  the address to listen on
+     * @throws IOException if a part file cannot be opened or the address cannot be bound
+     */
+    public NSPServer(NSPCombiner combiner, InetSocketAddress address) throws IOException {
+        List<File> partFiles = combiner.getPartFiles();
+        this.partChannels = new FileChannel[partFiles.size()];
+        this.partOffsets = new long[partFiles.size() + 1];
+        this.resourcePath = "/" + new File(combiner.getOutputFileName()).getName();
+
+        try {
+            for (int i = 0; i < partFiles.size(); i++) {
+                partChannels[i] = FileChannel.open(partFiles.get(i).toPath(), StandardOpenOption.READ);
+                partOffsets[i + 1] = partOffsets[i] + partChannels[i].size();
+            }
+            this.serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address, 64);
+        } catch (IOException e) {
+            closePartChannels();
+            throw e;
+        }
+
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "nsp-server-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.acceptThread = new Thread(this::acceptLoop, "nsp-server-accept");
+        this.stallSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nsp-server-stall-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts accepting connections on a background thread.
+     */
+    public void start() {
+        acceptThread.start();
+        stallSweeper.scheduleWithFixedDelay(this::closeStalledConnections, 5, 5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return the local port
+     * @throws IOException if the server channel has been closed
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Returns the request path the combined file is served under, such as "/output.nsp".
+     *
+     * @return the resource path
+     */
+    public String getResourcePath() {
+        return resourcePath;
+    }
+
+    /**
+     * Returns the size of the combined file in bytes.
+     *
+     * @return the sum of the part file sizes
+     */
+    public long getTotalSize() {
+        return partOffsets[partOffsets.length - 1];
+    }
+
+    /**
+     * Stops accepting connections, drops open ones and closes the part files.
+     */
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        stallSweeper.shutdownNow();
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closePartChannels();
+    }
+
+    private void closePartChannels() {
+        for (FileChannel channel : partChannels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                if (!connections.tryAcquire()) {
+                    rejectBusy(client);
+                    continue;
+                }
+                try {
+                    workers.execute(() -> handleConnection(client));
+                } catch (RejectedExecutionException e) {
+                    connections.release();
+                    client.close(); // Server was closed after the connection was accepted
+                    return;
+                }
+            } catch (ClosedChannelException e) {
+                return; // Server was closed
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void rejectBusy(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            writeStatus(channel, "503 Service Unavailable", false);
+        } catch (IOException e) {
+            // The client is turned away either way
+        } finally {
+            writeProgress.remove(client);
+        }
+    }
+
+    /**
+     * Reads are bounded by the socket timeout and request deadline, but blocking writes are not.
+     * Connections whose response has made no progress for the idle timeout are shut down here.
+     * Closing the channel would not wake a worker blocked in transferTo, but shutting the socket down
+     * makes the blocked write fail, and the worker then closes the channel itself.
+     */
+    private void closeStalledConnections() {
+        long stalledBefore = System.currentTimeMillis() - IDLE_TIMEOUT_MILLIS;
+        for (Map.Entry<SocketChannel, Long> entry : writeProgress.entrySet()) {
+            if (entry.getValue() < stalledBefore && writeProgress.remove(entry.getKey(), entry.getValue())) {
+                try {
+                    entry.getKey().shutdownOutput();
+                    entry.getKey().shutdownInput();
+                } catch (IOException e) {
+                    // Already closed by the worker
+                }
+            }
+        }
+    }
+
+    private void handleConnection(SocketChannel client) {
+        try (SocketChannel channel = client) {
+            channel.socket().setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            channel.socket().setTcpNoDelay(true);
+            // Reads go through the socket stream so the idle timeout applies, writes go through the channel
+            InputStream input = new BufferedInputStream(channel.socket().getInputStream());
+
+            boolean keepAlive = true;
+            while (keepAlive) {
+                // The wait for the request, stray line breaks before it and its headers all share one deadline
+                long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MILLIS;
+                String requestLine;
+                do {
+                    requestLine = readLine(input, deadline);
+                    if (requestLine == null) {
+                        return; // Client closed the connection
+                    }
+                } while (requestLine.isEmpty());
+
+                keepAlive = handleRequest(requestLine, input, channel, deadline);
+                writeProgress.remove(channel);
+            }
+        } catch (IOException e) {
+            // Timeouts and clients hanging up mid-transfer end the connection, nothing else to do
+        } finally {
+            writeProgress.remove(client);
+            connections.release();
+        }
+    }
+
+    /**
+     * Handles one request and writes its response.
+     *
+     * @return true if the connection can be reused for another request
+     */
+    private boolean handleRequest(String requestLine, InputStream input, SocketChannel channel, long deadline)
+            throws IOException {
+        String[] parts = requestLine.split(" ");
+        String range = null;
+        boolean keepAlive = parts.length == 3 && parts[2].equals("HTTP/1.1");
+        boolean hasBody = false;
+        int headerCount = 0;
+
+        String header;
+        while ((header = readLine(input, deadline)) != null && !header.isEmpty()) {
+            if (++headerCount > MAX_HEADER_COUNT) {
+                writeStatus(channel, "431 Request Header Fields Too Large", false);
+                return false;
+            }
+
+            int colon = header.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Range")) {
+                range = value;
+            } else if (name.equalsIgnoreCase("Connection")) {
+                keepAlive = value.equalsIgnoreCase("keep-alive")
+                        || (keepAlive && !value.equalsIgnoreCase("close"));
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")
+                    || (name.equalsIgnoreCase("Content-Length") && !value.equals("0"))) {
+                hasBody = true;
+            }
+        }
+        if (header == null) {
+            return false; // Connection ended in the middle of the headers
+        }
+
+        // Request bodies are never read, so the connection cannot be reused after one
+        keepAlive = keepAlive && !hasBody;
+
+        if (parts.length != 3) {
+            writeStatus(channel, "400 Bad Request", false);
+            return false;
+        }
+
+        String method = parts[0];
+        boolean head = method.equals("HEAD");
+        if (!head && !method.equals("GET")) {
+            writeHead(channel, "405 Method Not Allowed", false, 0, "Allow: GET, HEAD\r\n");
+            return false;
+        }
+
+        String path = parts[1];
+        int query = path.indexOf('?');
+        if (query != -1) {
+            path = path.substring(0, query);
+        }
+        if (!path.equals(resourcePath) && !path.equals("/")) {
+            writeStatus(channel, "404 Not Found", keepAlive);
+            return keepAlive;
+        }
+
+        long totalSize = getTotalSize();
+        long start = 0;
+        long end = totalSize - 1;
+        String status = "200 OK";
+        String contentRange = "";
+
+        long[] requested = parseRange(range, totalSize);
+        if (requested != null) {
+            if (requested.length == 0) {
+                writeHead(channel, "416 Range Not Satisfiable", keepAlive, 0,
+                        "Content-Range: bytes */" + totalSize + "\r\n");
+                return keepAlive;
+            }
+            start = requested[0];
+            end = requested[1];
+            status = "206 Partial Content";
+            contentRange = "Content-Range: bytes " + start + "-" + end + "/" + totalSize + "\r\n";
+        }
+
+        long length = end - start + 1;
+        writeHead(channel, status, keepAlive, length,
+                "Content-Type: application/octet-stream\r\nAccept-Ranges: bytes\r\n" + contentRange);
+        if (!head) {
+            transfer(start, length, channel);
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Parses a single "bytes=" range against the combined size.
+     *
+     * @return null to serve the whole file, an empty array if the range cannot be satisfied,
+     *         or the first and last byte positions
+     */
+    static long[] parseRange(String range, long totalSize) {
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return null; // No range, another unit, or multiple ranges: fall back to the whole file
+        }
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+
+            if (first.isEmpty()) {
+                // Suffix range such as "bytes=-500" for the last 500 bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || totalSize == 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, totalSize - suffix);
+                end = totalSize - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = totalSize - 1;
+                if (!last.isEmpty()) {
+                    long requestedEnd = Long.parseLong(last);
+                    if (requestedEnd < start) {
+                        return null; // Invalid ranges are ignored
+                    }
+                    end = Math.min(requestedEnd, end);
+                }
+                if (start < 0 || start >= totalSize) {
+                    return new long[0];
+                }
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends a span of the combined file, crossing part boundaries as needed.
+     */
+    private void transfer(long position, long count, SocketChannel target) throws IOException {
+        int part = Arrays.binarySearch(partOffsets, position);
+        if (part < 0) {
+            part = -part - 2; // Index of the part containing the position
+        }
+
+        while (count > 0) {
+            long partEnd = partOffsets[part + 1];
+            if (position >= partEnd) {
+                part++; // Skip empty parts
+                continue;
+            }
+
+            long chunk = Math.min(Math.min(count, partEnd - position), TRANSFER_CHUNK);
+            writeProgress.put(target, System.currentTimeMillis());
+            long sent = partChannels[part].transferTo(position - partOffsets[part], chunk, target);
+            if (sent <= 0) {
+                throw new IOException("Part file shrank while serving: part " + (part + 1));
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    private void writeStatus(SocketChannel channel, String status, boolean keepAlive) throws IOException {
+        writeHead(channel, status, keepAlive, 0, "");
+    }
+
+    private void writeHead(SocketChannel channel, String status, boolean keepAlive, long contentLength,
+            String extraHeaders) throws IOException {
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + extraHeaders
+                + "Content-Length: " + contentLength + "\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                + "\r\n";
+
+        ByteBuffer buffer = ByteBuffer.wrap(head.getBytes(StandardCharsets.ISO_8859_1));
+        while (buffer.hasRemaining()) {
+            writeProgress.put(channel, System.currentTimeMillis());
+            channel.write(buffer);
+        }
+    }
+
+    private static String readLine(InputStream input, long deadline) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = input.read()) != -1) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new SocketTimeoutException("Request was not received in time");
+            }
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_HEADER_LINE) {
+                throw new IOException("Request header line too long");
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+}
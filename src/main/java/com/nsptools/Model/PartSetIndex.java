@@ -0,0 +1,530 @@
+package com.nsptools.Model;
+
+import java.io.File;
+import java.util.Map;
+import java.util.List;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Collections;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.nio.file.DirectoryStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes every set of split NSP/XCI parts in a directory.
+ * The directory is listed once, then kept up to date through a WatchService, so looking up
+ * part sets again does not re-read the directory. Only a few recently used directories stay
+ * watched at a time. Each part set is checked for gaps,
+ * duplicate part numbers, mixed extensions and inconsistent part sizes.
+ *
+ * @author V-Karch
+ */
+public class PartSetIndex implements Closeable {
+    // "game_part_1.nsp" style parts, as written by NSPSplitter
+    private static final Pattern NAMED_PART = Pattern.compile("(.*)_part_(\\d{1,9})\\.(nsp|xci)",
+            Pattern.CASE_INSENSITIVE);
+    // "00", "01", ... style parts
+    private static final Pattern NUMBERED_PART = Pattern.compile("\\d{2}");
+
+    // Each watched index holds an OS watch handle, so only the most recently used ones are kept
+    private static final int MAX_CACHED_INDEXES = 4;
+    // Indexes still being built are cached too, so callers for the same directory wait for the one scan
+    private static final Map<Path, CompletableFuture<PartSetIndex>> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Path directory;
+    // Matching files by file name, only written by the first scan and then by the watcher thread
+    private final Map<String, Part> parts = new HashMap<>();
+    private List<PartSet> partSets; // Cached result of getPartSets(), null after any change
+    private WatchService watchService;
+
+    /**
+     * Returns the shared, watched index for a directory, creating it on first use.
+     * Later calls for the same directory return the same index without listing the directory again.
+     * When too many directories are cached, the least recently used index is closed and stops updating.
+     * The first listing of a directory only blocks callers asking for that same directory.
+     *
+     * @param directory the directory to index
+     * @return the index for the directory
+     * @throws IOException if the directory cannot be read
+     */
+    public static PartSetIndex forDirectory(File directory) throws IOException {
+        Path path = directory.toPath().toAbsolutePath().normalize();
+        List<CompletableFuture<PartSetIndex>> evicted = new ArrayList<>();
+        CompletableFuture<PartSetIndex> future;
+        boolean owner = false;
+
+        synchronized (cache) {
+            future = cache.get(path);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                owner = true;
+                cache.put(path, future);
+
+                Iterator<CompletableFuture<PartSetIndex>> eldest = cache.values().iterator();
+                while (cache.size() > MAX_CACHED_INDEXES) {
+                    evicted.add(eldest.next());
+                    eldest.remove();
+                }
+            }
+        }
+
+        for (CompletableFuture<PartSetIndex> old : evicted) {
+            // Indexes still being built are closed once they finish
+            old.thenAccept(PartSetIndex::closeQuietly);
+        }
+
+        if (owner) {
+            // List the directory outside the lock so other directories are not held up
+            PartSetIndex index = new PartSetIndex(path);
+            try {
+                index.watch();
+            } catch (IOException | RuntimeException e) {
+                synchronized (cache) {
+                    cache.remove(path, future);
+                }
+                future.completeExceptionally(e);
+                throw e;
+            }
+            future.complete(index);
+            return index;
+        }
+
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Indexes a directory once, without watching it for changes.
+     *
+     * @param directory the directory to index
+     * @return a new index for the directory
+     * @throws IOException if the directory cannot be read
+     */
+    public static PartSetIndex scan(File directory) throws IOException {
+        PartSetIndex index = new PartSetIndex(directory.toPath().toAbsolutePath().normalize());
+        index.scan();
+        return index;
+    }
+
+    private PartSetIndex(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the indexed directory.
+     *
+     * @return the directory as a File
+     */
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    /**
+     * Returns every part set in the directory, ordered by name.
+     *
+     * @return an unmodifiable list of part sets
+     */
+    public synchronized List<PartSet> getPartSets() {
+        if (partSets == null) {
+            Map<String, List<Part>> grouped = new TreeMap<>();
+            for (Part part : parts.values()) {
+                grouped.computeIfAbsent(part.setKey, key -> new ArrayList<>()).add(part);
+            }
+
+            List<PartSet> sets = new ArrayList<>();
+            for (List<Part> setParts : grouped.values()) {
+                sets.add(new PartSet(directory, setParts));
+            }
+            partSets = Collections.unmodifiableList(sets);
+        }
+        return partSets;
+    }
+
+    /**
+     * Stops watching the directory and removes this index from the shared cache.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (cache) {
+            CompletableFuture<PartSetIndex> cached = cache.get(directory);
+            if (cached != null && cached.getNow(null) == this) {
+                cache.remove(directory);
+            }
+        }
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+            watchService = null;
+        }
+        if (service != null) {
+            service.close();
+        }
+    }
+
+    private static void closeQuietly(PartSetIndex index) {
+        try {
+            index.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Lists the whole directory and replaces the indexed parts with what was found.
+     * Runs before the watcher thread starts, and afterwards only on the watcher thread,
+     * so it never races with per-file updates.
+     */
+    private void scan() throws IOException {
+        Map<String, Part> found = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                Part part = Part.parse(path);
+                if (part != null) {
+                    found.put(part.fileName, part);
+                }
+            }
+        }
+
+        synchronized (this) {
+            parts.clear();
+            parts.putAll(found);
+            partSets = null;
+        }
+    }
+
+    /**
+     * Re-reads a single file after a watch event, adding, updating or removing its part.
+     */
+    private void refresh(Path fileName) {
+        Part part;
+        try {
+            part = Part.parse(directory.resolve(fileName));
+        } catch (IOException e) {
+            part = null; // Deleted or unreadable, either way it is no longer a usable part
+        }
+
+        synchronized (this) {
+            Part previous = part == null ? parts.remove(fileName.toString()) : parts.put(part.fileName, part);
+            if (part != null || previous != null) {
+                partSets = null;
+            }
+        }
+    }
+
+    /**
+     * Registers for changes, lists the directory, then starts applying changes on a watcher thread.
+     * Changes made during the listing queue up on the watch key and are applied on top of it.
+     */
+    private void watch() throws IOException {
+        WatchService service = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            scan();
+        } catch (IOException e) {
+            service.close();
+            throw e;
+        }
+        synchronized (this) {
+            watchService = service;
+        }
+
+        Thread watcher = new Thread(() -> watchLoop(service), "part-set-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scan(); // Events were lost, fall back to listing the directory again
+                    } else {
+                        refresh((Path) event.context());
+                    }
+                }
+                if (!key.reset()) {
+                    close(); // The directory is gone
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Index was closed
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                close(); // Stop serving a stale index from the cache
+            } catch (IOException closeException) {
+                closeException.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A single part file found in the directory.
+     */
+    private static class Part {
+        private final String fileName;
+        private final String setKey;
+        private final String setName;
+        private final String extension; // null for numbered parts
+        private final int number;
+        private final long size;
+
+        private Part(String fileName, String setName, String extension, int number, long size) {
+            this.fileName = fileName;
+            this.setKey = setName.toLowerCase();
+            this.setName = setName;
+            this.extension = extension;
+            this.number = number;
+            this.size = size;
+        }
+
+        /**
+         * Parses a path into a part, or returns null if it is not a regular file with a part name.
+         * Only files whose names match are looked up on disk.
+         */
+        private static Part parse(Path path) throws IOException {
+            String fileName = path.getFileName().toString();
+            String setName;
+            String extension;
+            int number;
+
+            Matcher named = NAMED_PART.matcher(fileName);
+            if (named.matches()) {
+                setName = named.group(1);
+                number = Integer.parseInt(named.group(2));
+                extension = named.group(3).toLowerCase();
+            } else if (NUMBERED_PART.matcher(fileName).matches()) {
+                setName = "";
+                number = Integer.parseInt(fileName);
+                extension = null;
+            } else {
+                return null;
+            }
+
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return new Part(fileName, setName, extension, number, attributes.size());
+        }
+
+        /**
+         * Returns the file name the following part would have, keeping this part's naming and zero padding.
+         */
+        private String nextFileName() {
+            if (extension == null) {
+                return String.format("%02d", number + 1);
+            }
+
+            Matcher named = NAMED_PART.matcher(fileName);
+            named.matches();
+            StringBuilder next = new StringBuilder(Integer.toString(number + 1));
+            while (next.length() < named.group(2).length()) {
+                next.insert(0, '0');
+            }
+            return fileName.substring(0, named.start(2)) + next + fileName.substring(named.end(2));
+        }
+    }
+
+    /**
+     * A group of parts that combine into one file, with the problems found when validating it.
+     */
+    public static class PartSet {
+        private final Path directory;
+        private final List<Part> parts;
+        private final String name;
+        private final String extension;
+        private final List<File> files = new ArrayList<>();
+        private final List<String> problems = new ArrayList<>();
+        private final long totalSize;
+
+        private PartSet(Path directory, List<Part> setParts) {
+            this.directory = directory;
+            this.parts = setParts;
+            setParts.sort((a, b) -> a.number != b.number ? Integer.compare(a.number, b.number)
+                    : a.fileName.compareTo(b.fileName));
+            Part first = setParts.get(0);
+            this.name = first.setName.isEmpty() ? "numbered parts" : first.setName;
+
+            long size = 0;
+            for (Part part : setParts) {
+                files.add(directory.resolve(part.fileName).toFile());
+                size += part.size;
+            }
+            this.totalSize = size;
+
+            String mixed = null;
+            for (Part part : setParts) {
+                if (part.extension != null && !part.extension.equals(first.extension)) {
+                    mixed = part.extension;
+                }
+            }
+            if (mixed != null) {
+                problems.add("Part set '" + name + "' mixes ." + first.extension + " and ." + mixed + " parts");
+            }
+            this.extension = first.extension == null ? "nsp" : first.extension;
+
+            validateNumbering(setParts, first.extension == null ? 0 : 1);
+            validateSizes(setParts);
+        }
+
+        private void validateNumbering(List<Part> setParts, int expectedFirst) {
+            int expected = expectedFirst;
+            Part previous = null;
+            for (Part part : setParts) {
+                if (previous != null && part.number == previous.number) {
+                    problems.add("Part " + part.number + " of '" + name + "' appears more than once: "
+                            + previous.fileName + ", " + part.fileName);
+                    continue;
+                }
+                if (part.number > expected) {
+                    problems.add("Part set '" + name + "' is missing part "
+                            + (part.number - 1 == expected ? expected : expected + "-" + (part.number - 1)));
+                }
+                expected = part.number + 1;
+                previous = part;
+            }
+        }
+
+        private void validateSizes(List<Part> setParts) {
+            long partSize = setParts.get(0).size;
+            for (int i = 0; i < setParts.size(); i++) {
+                Part part = setParts.get(i);
+                boolean last = i == setParts.size() - 1;
+                if (part.size == 0) {
+                    problems.add("Part " + part.fileName + " is empty");
+                } else if (last ? part.size > partSize : part.size != partSize) {
+                    problems.add("Part " + part.fileName + " is " + part.size + " bytes, expected "
+                            + (last ? "at most " : "") + partSize);
+                }
+            }
+        }
+
+        /**
+         * Reads the part files of this set from disk again and validates the result.
+         * Only this set's own files and the name of the part after the last one are looked up,
+         * the directory is not listed. A following part that the index has not seen yet makes the set invalid,
+         * since combining without it would silently produce a truncated file.
+         *
+         * @return a new PartSet reflecting the current part files
+         * @throws IOException if a part file cannot be read or none of them exist anymore
+         */
+        public PartSet reload() throws IOException {
+            List<Part> current = new ArrayList<>();
+            for (Part part : parts) {
+                Part reread = Part.parse(directory.resolve(part.fileName));
+                if (reread != null) {
+                    current.add(reread);
+                }
+            }
+
+            if (current.isEmpty()) {
+                throw new NoSuchFileException("None of the parts of '" + name + "' exist anymore");
+            }
+
+            PartSet reloaded = new PartSet(directory, current);
+            Part last = reloaded.parts.get(reloaded.parts.size() - 1);
+            Part next = Part.parse(directory.resolve(last.nextFileName()));
+            if (next != null) {
+                reloaded.problems.add("Part set '" + name + "' has a newer part " + next.fileName
+                        + " that was not indexed yet, try again");
+            }
+            return reloaded;
+        }
+
+        /**
+         * Returns the name the parts share, such as "game" for "game_part_1.nsp".
+         *
+         * @return the set name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the extension of the combined file, "nsp" or "xci".
+         *
+         * @return the extension without a dot
+         */
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Returns the part files in the order they are combined.
+         *
+         * @return an unmodifiable list of the part files
+         */
+        public List<File> getParts() {
+            return Collections.unmodifiableList(files);
+        }
+
+        /**
+         * Returns the combined size of the parts when they were indexed.
+         *
+         * @return the total size in bytes
+         */
+        public long getTotalSize() {
+            return totalSize;
+        }
+
+        /**
+         * Returns the problems found in this set, such as gaps, duplicates or wrongly sized parts.
+         *
+         * @return an unmodifiable list of problem descriptions, empty if the set is valid
+         */
+        public List<String> getProblems() {
+            return Collections.unmodifiableList(problems);
+        }
+
+        /**
+         * Checks whether the set can be combined into a complete file.
+         *
+         * @return true if no problems were found
+         */
+        public boolean isValid() {
+            return problems.isEmpty();
+        }
+
+        /**
+         * Returns the set name as a string representation of the PartSet.
+         *
+         * @return the set name
+         */
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
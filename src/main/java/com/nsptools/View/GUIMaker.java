@@ -1,6 +1,7 @@
 package com.nsptools.View;
 
 import java.io.File;
+import java.io.IOException;
 import javafx.stage.Stage;
 import javafx.concurrent.Task;
 import javafx.scene.paint.Color;
@@ -12,6 +13,7 @@ import javafx.scene.layout.GridPane;
 import javafx.stage.DirectoryChooser;
 import com.nsptools.Model.NSPCombiner;
 import com.nsptools.Model.NSPSplitter;
+import com.nsptools.Model.PartSetIndex;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.CornerRadii;
 import javafx.scene.control.ProgressBar;
@@ -126,6 +128,17 @@ public class GUIMaker {
             if (selectedDirectory != null) {
                 // Update the label with the selected directory's path
                 directoryPathLabel.setText("Selected directory: " + selectedDirectory.getAbsolutePath());
+
+                // Index the part sets in the background so combining can start right away
+                Thread indexThread = new Thread(() -> {
+                    try {
+                        PartSetIndex.forDirectory(selectedDirectory);
+                    } catch (IOException e) {
+                        e.printStackTrace(); // Combining reports the error if the directory stays unreadable
+                    }
+                });
+                indexThread.setDaemon(true);
+                indexThread.start();
             } else {
                 directoryPathLabel.setText("No directory selected.");
             }
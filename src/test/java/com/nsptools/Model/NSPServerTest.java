@@ -0,0 +1,241 @@
+package com.nsptools.Model;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.net.Socket;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Tests for NSPServer, run against a real server on the loopback interface.
+ *
+ * @author V-Karch
+ */
+public class NSPServerTest {
+    @TempDir
+    Path tempDir;
+
+    private NSPServer server;
+    private byte[] data; // The parts concatenated, as the server should serve them
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        Random random = new Random(42);
+        byte[][] parts = { new byte[1000], new byte[1000], new byte[500] };
+        data = new byte[2500];
+
+        int offset = 0;
+        for (int i = 0; i < parts.length; i++) {
+            random.nextBytes(parts[i]);
+            Files.write(tempDir.resolve("game_part_" + (i + 1) + ".nsp"), parts[i]);
+            System.arraycopy(parts[i], 0, data, offset, parts[i].length);
+            offset += parts[i].length;
+        }
+
+        NSPCombiner combiner = new NSPCombiner(tempDir.toString(), null);
+        server = new NSPServer(combiner, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void servesWholeFileWithoutRange() throws IOException {
+        try (Socket socket = connect()) {
+            Response response = send(socket, get(null));
+            assertEquals(200, response.status);
+            assertEquals("bytes", response.headers.get("accept-ranges"));
+            assertArrayEquals(data, response.body);
+        }
+    }
+
+    @Test
+    public void servesRangeAcrossPartBoundaries() throws IOException {
+        try (Socket socket = connect()) {
+            Response response = send(socket, get("bytes=900-2099"));
+            assertEquals(206, response.status);
+            assertEquals("bytes 900-2099/2500", response.headers.get("content-range"));
+            assertArrayEquals(Arrays.copyOfRange(data, 900, 2100), response.body);
+        }
+    }
+
+    @Test
+    public void servesSuffixRange() throws IOException {
+        try (Socket socket = connect()) {
+            Response response = send(socket, get("bytes=-300"));
+            assertEquals(206, response.status);
+            assertEquals("bytes 2200-2499/2500", response.headers.get("content-range"));
+            assertArrayEquals(Arrays.copyOfRange(data, 2200, 2500), response.body);
+        }
+    }
+
+    @Test
+    public void servesOpenEndedRange() throws IOException {
+        try (Socket socket = connect()) {
+            Response response = send(socket, get("bytes=1000-"));
+            assertEquals(206, response.status);
+            assertArrayEquals(Arrays.copyOfRange(data, 1000, 2500), response.body);
+        }
+    }
+
+    @Test
+    public void rejectsRangePastEndOfFile() throws IOException {
+        try (Socket socket = connect()) {
+            Response response = send(socket, get("bytes=2500-3000"));
+            assertEquals(416, response.status);
+            assertEquals("bytes */2500", response.headers.get("content-range"));
+        }
+    }
+
+    @Test
+    public void reusesKeepAliveConnection() throws IOException {
+        try (Socket socket = connect()) {
+            Response first = send(socket, get("bytes=0-9"));
+            Response second = send(socket, get("bytes=995-1004"));
+
+            assertEquals("keep-alive", first.headers.get("connection"));
+            assertArrayEquals(Arrays.copyOfRange(data, 0, 10), first.body);
+            assertEquals(206, second.status);
+            assertArrayEquals(Arrays.copyOfRange(data, 995, 1005), second.body);
+        }
+    }
+
+    @Test
+    public void closesConnectionAfterUnsupportedMethod() throws IOException {
+        String smuggled = "GET /x HTTP/1.1\r\nHost: x\r\n\r\n";
+        String request = "POST " + server.getResourcePath() + " HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Length: " + smuggled.length() + "\r\n\r\n" + smuggled;
+
+        try (Socket socket = connect()) {
+            Response response = send(socket, request);
+            assertEquals(405, response.status);
+            assertEquals("close", response.headers.get("connection"));
+            assertEquals(-1, socket.getInputStream().read()); // The body is never parsed as a request
+        }
+    }
+
+    @Test
+    public void rejectsTooManyHeaders() throws IOException {
+        StringBuilder request = new StringBuilder("GET " + server.getResourcePath() + " HTTP/1.1\r\n");
+        for (int i = 0; i < 100; i++) {
+            request.append("X-Header-").append(i).append(": value\r\n");
+        }
+        request.append("\r\n");
+
+        try (Socket socket = connect()) {
+            assertEquals(431, send(socket, request.toString()).status);
+        }
+    }
+
+    @Test
+    public void turnsAwayConnectionsOverTheLimit() throws IOException {
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 64; i++) {
+                sockets.add(connect());
+            }
+            // Every connection up to the limit still gets served
+            assertEquals(206, send(sockets.get(63), get("bytes=0-9")).status);
+
+            try (Socket rejected = connect()) {
+                assertEquals(503, send(rejected, get(null)).status);
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void parseRangeIgnoresUnsupportedRanges() {
+        assertNull(NSPServer.parseRange(null, 100));
+        assertNull(NSPServer.parseRange("items=0-10", 100));
+        assertNull(NSPServer.parseRange("bytes=0-10,20-30", 100));
+        assertNull(NSPServer.parseRange("bytes=50-10", 100));
+        assertNull(NSPServer.parseRange("bytes=abc-", 100));
+    }
+
+    @Test
+    public void parseRangeClampsToFileSize() {
+        assertArrayEquals(new long[] { 10, 99 }, NSPServer.parseRange("bytes=10-500", 100));
+        assertArrayEquals(new long[] { 0, 99 }, NSPServer.parseRange("bytes=-500", 100));
+        assertArrayEquals(new long[0], NSPServer.parseRange("bytes=-0", 100));
+        assertArrayEquals(new long[0], NSPServer.parseRange("bytes=100-", 100));
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private String get(String range) {
+        return "GET " + server.getResourcePath() + " HTTP/1.1\r\nHost: localhost\r\n"
+                + (range == null ? "" : "Range: " + range + "\r\n") + "\r\n";
+    }
+
+    /**
+     * Sends a raw request and reads exactly one response, leaving later responses on the socket.
+     */
+    private static Response send(Socket socket, String request) throws IOException {
+        OutputStream output = socket.getOutputStream();
+        output.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        output.flush();
+
+        InputStream input = socket.getInputStream();
+        Response response = new Response();
+        response.status = Integer.parseInt(readLine(input).split(" ")[1]);
+
+        String header;
+        while (!(header = readLine(input)).isEmpty()) {
+            int colon = header.indexOf(':');
+            response.headers.put(header.substring(0, colon).trim().toLowerCase(), header.substring(colon + 1).trim());
+        }
+
+        int length = Integer.parseInt(response.headers.getOrDefault("content-length", "0"));
+        response.body = input.readNBytes(length);
+        assertEquals(length, response.body.length);
+        return response;
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Connection closed mid-response");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static class Response {
+        private int status;
+        private final Map<String, String> headers = new HashMap<>();
+        private byte[] body;
+    }
+}
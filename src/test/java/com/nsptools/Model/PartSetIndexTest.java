@@ -0,0 +1,199 @@
+package com.nsptools.Model;
+
+import java.io.File;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for PartSetIndex grouping and validation, run over a temporary directory.
+ *
+ * @author V-Karch
+ */
+public class PartSetIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void acceptsCompleteSet() throws IOException {
+        write("game_part_1.nsp", 100);
+        write("game_part_2.nsp", 100);
+        write("game_part_3.nsp", 40);
+
+        PartSetIndex.PartSet set = onlySet();
+        assertTrue(set.isValid(), set.getProblems().toString());
+        assertEquals("game", set.getName());
+        assertEquals("nsp", set.getExtension());
+        assertEquals(240, set.getTotalSize());
+        assertEquals(3, set.getParts().size());
+    }
+
+    @Test
+    public void sortsPartsNumerically() throws IOException {
+        for (int i = 1; i <= 10; i++) {
+            write("game_part_" + i + ".xci", 10);
+        }
+
+        List<File> parts = onlySet().getParts();
+        assertEquals("game_part_9.xci", parts.get(8).getName());
+        assertEquals("game_part_10.xci", parts.get(9).getName());
+    }
+
+    @Test
+    public void groupsEverySetInDirectory() throws IOException {
+        write("alpha_part_1.nsp", 10);
+        write("beta_part_1.xci", 10);
+        write("00", 10);
+        write("01", 5);
+        write("notes.txt", 10);
+
+        List<PartSetIndex.PartSet> sets = PartSetIndex.scan(tempDir.toFile()).getPartSets();
+        assertEquals(3, sets.size());
+        assertEquals("numbered parts", sets.get(0).getName());
+        assertEquals("alpha", sets.get(1).getName());
+        assertEquals("xci", sets.get(2).getExtension());
+        assertThrows(IllegalArgumentException.class, () -> new NSPCombiner(tempDir.toString(), null));
+    }
+
+    @Test
+    public void detectsMissingParts() throws IOException {
+        write("game_part_1.nsp", 10);
+        write("game_part_4.nsp", 10);
+
+        assertProblem(onlySet(), "missing part 2-3");
+    }
+
+    @Test
+    public void detectsMissingFirstNumberedPart() throws IOException {
+        write("01", 10);
+
+        assertProblem(onlySet(), "missing part 0");
+    }
+
+    @Test
+    public void detectsDuplicateParts() throws IOException {
+        write("game_part_1.nsp", 10);
+        write("game_part_2.nsp", 10);
+        write("game_part_02.nsp", 10);
+
+        assertProblem(onlySet(), "Part 2 of 'game' appears more than once");
+    }
+
+    @Test
+    public void detectsMixedExtensions() throws IOException {
+        write("game_part_1.nsp", 10);
+        write("game_part_2.xci", 10);
+
+        assertProblem(onlySet(), "mixes .nsp and .xci");
+    }
+
+    @Test
+    public void detectsWrongSizes() throws IOException {
+        write("game_part_1.nsp", 100);
+        write("game_part_2.nsp", 50);
+        write("game_part_3.nsp", 200);
+
+        PartSetIndex.PartSet set = onlySet();
+        assertProblem(set, "game_part_2.nsp is 50 bytes, expected 100");
+        assertProblem(set, "game_part_3.nsp is 200 bytes, expected at most 100");
+    }
+
+    @Test
+    public void reloadSeesChangesOnDisk() throws IOException {
+        write("game_part_1.nsp", 100);
+        write("game_part_2.nsp", 50);
+        PartSetIndex.PartSet set = onlySet();
+
+        write("game_part_2.nsp", 150);
+        assertTrue(set.isValid());
+        assertProblem(set.reload(), "game_part_2.nsp is 150 bytes");
+        assertThrows(IllegalArgumentException.class, () -> new NSPCombiner(set, null));
+    }
+
+    @Test
+    public void reloadRejectsPartAddedAfterIndexing() throws IOException {
+        write("game_part_1.nsp", 100);
+        write("game_part_2.nsp", 100);
+        PartSetIndex.PartSet set = onlySet();
+
+        write("game_part_3.nsp", 100);
+        assertTrue(set.isValid());
+        assertProblem(set.reload(), "game_part_3.nsp that was not indexed yet");
+        assertThrows(IllegalArgumentException.class, () -> new NSPCombiner(set, null));
+    }
+
+    @Test
+    public void reloadRejectsNumberedPartAddedAfterIndexing() throws IOException {
+        write("00", 100);
+        PartSetIndex.PartSet set = onlySet();
+
+        write("01", 100);
+        assertProblem(set.reload(), "01 that was not indexed yet");
+    }
+
+    @Test
+    public void watchedIndexFollowsDirectoryChanges() throws Exception {
+        write("game_part_1.nsp", 10);
+        PartSetIndex index = PartSetIndex.forDirectory(tempDir.toFile());
+        try {
+            write("other_part_1.nsp", 10);
+
+            // Some platforms poll for changes, so allow plenty of time
+            long deadline = System.currentTimeMillis() + 30 * 1000;
+            while (index.getPartSets().size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(2, index.getPartSets().size());
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void concurrentCallersShareOneIndex() throws Exception {
+        write("game_part_1.nsp", 10);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<PartSetIndex>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> PartSetIndex.forDirectory(tempDir.toFile())));
+            }
+
+            PartSetIndex index = results.get(0).get();
+            for (Future<PartSetIndex> result : results) {
+                assertSame(index, result.get());
+            }
+            index.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void write(String fileName, int size) throws IOException {
+        Files.write(tempDir.resolve(fileName), new byte[size]);
+    }
+
+    private PartSetIndex.PartSet onlySet() throws IOException {
+        List<PartSetIndex.PartSet> sets = PartSetIndex.scan(tempDir.toFile()).getPartSets();
+        assertEquals(1, sets.size());
+        return sets.get(0);
+    }
+
+    private static void assertProblem(PartSetIndex.PartSet set, String expected) {
+        assertFalse(set.isValid());
+        assertTrue(set.getProblems().stream().anyMatch(problem -> problem.contains(expected)),
+                "Expected a problem containing '" + expected + "' in " + set.getProblems());
+    }
+}